@@ -67,13 +67,11 @@ function App() {
   };
 
   const handleDownload = async (k) => {
-    const res = await downloadObject(bucket, k);
-    const url = window.URL.createObjectURL(new Blob([res.data]));
+    const url = await downloadObject(bucket, k);
     const a = document.createElement('a');
     a.href = url;
     a.download = k.split('/').pop();
     a.click();
-    window.URL.revokeObjectURL(url);
   };
 
   const handleDelete = async (k) => {
@@ -10,19 +10,21 @@ export const listBuckets = () =>
 export const listObjects = bucket =>
   api.get(`/buckets/${bucket}/objects`);
 
-export const uploadObject = (bucket, key, file) => {
-  const form = new FormData();
-  form.append('key', key);
-  form.append('file', file);
-  return api.post(`/buckets/${bucket}/objects`, form, {
-    headers: { 'Content-Type': 'multipart/form-data' }
+export const presignObject = (bucket, key, method = 'GET') =>
+  api.post(`/buckets/${bucket}/presign`, null, { params: { key, method } });
+
+// Uploads and downloads go straight to the presigned streaming endpoint
+export const uploadObject = async (bucket, key, file) => {
+  const { data } = await presignObject(bucket, key, 'PUT');
+  return axios.put(data.url, file, {
+    headers: { 'Content-Type': file.type || 'application/octet-stream' }
   });
 };
 
-export const downloadObject = (bucket, key) =>
-  api.get(`/buckets/${bucket}/objects/${encodeURIComponent(key)}`, {
-    responseType: 'blob'
-  });
+export const downloadObject = async (bucket, key) => {
+  const { data } = await presignObject(bucket, key, 'GET');
+  return data.url;
+};
 
 export const deleteObject = (bucket, key) =>
   api.delete(`/buckets/${bucket}/objects/${encodeURIComponent(key)}`);
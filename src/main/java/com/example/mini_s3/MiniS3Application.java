@@ -4,9 +4,10 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import com.example.mini_s3.config.StorageProperties;
+import com.example.mini_s3.config.TransferProperties;
 
 @SpringBootApplication
-@EnableConfigurationProperties(StorageProperties.class)
+@EnableConfigurationProperties({StorageProperties.class, TransferProperties.class})
 public class MiniS3Application {
     public static void main(String[] args) {
         SpringApplication.run(MiniS3Application.class, args);
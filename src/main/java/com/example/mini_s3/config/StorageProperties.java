@@ -10,4 +10,6 @@ import java.nio.file.Paths;
 @Data
 public class StorageProperties {
     private Path root = Paths.get("./storage");
+    // Write an index snapshot once this many journal entries are outstanding (0 = only on shutdown)
+    private int snapshotAfterJournalEntries = 10_000;
 }
@@ -0,0 +1,29 @@
+package com.example.mini_s3.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import lombok.Data;
+import java.time.Duration;
+
+
+@ConfigurationProperties(prefix = "transfer")
+@Data
+public class TransferProperties {
+    // HMAC key for presigned URLs; a random one is generated when blank (URLs then die with the process)
+    private String presignSecret = "";
+    private Duration presignDefaultExpiry = Duration.ofMinutes(15);
+    private Duration presignMaxExpiry = Duration.ofDays(7);
+
+    // Bandwidth limits in bytes per second, 0 means unlimited
+    private DataSize bucketBandwidth = DataSize.ofBytes(0);
+    private DataSize clientBandwidth = DataSize.ofBytes(0);
+
+    // Transfers up to this size skip the bulk queue and are never held back by bulk traffic
+    private DataSize smallObjectThreshold = DataSize.ofMegabytes(1);
+    private int maxConcurrentLarge = 8;
+    // Large transfers one client may have open or queued; beyond that it gets SlowDown straight away
+    private int maxLargePerClient = 2;
+    // Requests allowed to wait for a large slot; when the queue is full new ones get SlowDown straight away
+    private int maxQueuedLarge = 16;
+    private Duration largeQueueTimeout = Duration.ofSeconds(30);
+}
@@ -10,6 +10,6 @@ public class WebConfig implements WebMvcConfigurer {
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
             .allowedOrigins("http://localhost:5173", "http://localhost:3000")
-            .allowedMethods("GET", "POST", "DELETE");
+            .allowedMethods("GET", "POST", "PUT", "DELETE");
     }
 }
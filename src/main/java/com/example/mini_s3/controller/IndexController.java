@@ -0,0 +1,26 @@
+package com.example.mini_s3.controller;
+
+import com.example.mini_s3.model.IndexStats;
+import com.example.mini_s3.service.BucketIndex;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/index")
+@RequiredArgsConstructor
+public class IndexController {
+    private final BucketIndex index;
+
+    @GetMapping("/stats")
+    public IndexStats stats() {
+        return index.stats();
+    }
+
+    @PostMapping("/snapshot")
+    public ResponseEntity<IndexStats> snapshot() throws IOException {
+        index.writeSnapshot();
+        return ResponseEntity.ok(index.stats());
+    }
+}
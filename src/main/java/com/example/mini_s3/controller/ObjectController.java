@@ -2,8 +2,11 @@ package com.example.mini_s3.controller;
 
 import com.example.mini_s3.model.ObjectMetadata;
 import com.example.mini_s3.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
@@ -21,9 +24,10 @@ public class ObjectController {
     public ObjectMetadata putObject(
             @PathVariable String bucket,
             @RequestParam("key") String key,
-            @RequestPart("file") MultipartFile file
+            @RequestPart("file") MultipartFile file,
+            HttpServletRequest request
     ) throws IOException {
-        return storage.putObject(bucket, key, file);
+        return storage.putObject(bucket, key, file, request.getRemoteAddr());
     }
 
     @GetMapping
@@ -34,9 +38,12 @@ public class ObjectController {
     @GetMapping("/{key}")
     public ResponseEntity<Resource> get(
             @PathVariable String bucket,
-            @PathVariable String key
+            @PathVariable String key,
+            HttpServletRequest request
     ) throws IOException {
-        return storage.getObject(bucket, key);
+        // Spring routes HEAD here as well
+        return storage.getObject(bucket, key, request.getHeader(HttpHeaders.RANGE),
+                HttpMethod.HEAD.matches(request.getMethod()), request.getRemoteAddr());
     }
 
     @DeleteMapping("/{key}")
@@ -0,0 +1,60 @@
+package com.example.mini_s3.controller;
+
+import com.example.mini_s3.model.ObjectMetadata;
+import com.example.mini_s3.model.PresignedUrl;
+import com.example.mini_s3.service.PresignService;
+import com.example.mini_s3.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+import java.time.Duration;
+
+@RestController
+@RequiredArgsConstructor
+public class PresignedController {
+    private final PresignService presign;
+    private final StorageService storage;
+
+    @PostMapping("/buckets/{bucket}/presign")
+    public PresignedUrl presign(
+            @PathVariable String bucket,
+            @RequestParam("key") String key,
+            @RequestParam(value = "method", defaultValue = "GET") String method,
+            @RequestParam(value = "expiresIn", required = false) Long expiresInSeconds
+    ) {
+        Duration expiresIn = expiresInSeconds == null ? null : Duration.ofSeconds(expiresInSeconds);
+        return presign.presign(HttpMethod.valueOf(method.toUpperCase()), bucket, key, expiresIn);
+    }
+
+    @GetMapping("/presigned/{bucket}")
+    public ResponseEntity<Resource> get(
+            @PathVariable String bucket,
+            @RequestParam("key") String key,
+            @RequestParam("expires") long expires,
+            @RequestParam("signature") String signature,
+            HttpServletRequest request
+    ) throws IOException {
+        presign.verify(HttpMethod.GET, bucket, key, expires, signature);
+        return storage.getObject(bucket, key, request.getHeader(HttpHeaders.RANGE),
+                HttpMethod.HEAD.matches(request.getMethod()), request.getRemoteAddr());
+    }
+
+    @PutMapping("/presigned/{bucket}")
+    public ObjectMetadata put(
+            @PathVariable String bucket,
+            @RequestParam("key") String key,
+            @RequestParam("expires") long expires,
+            @RequestParam("signature") String signature,
+            HttpServletRequest request
+    ) throws IOException {
+        presign.verify(HttpMethod.PUT, bucket, key, expires, signature);
+        // Read straight off the socket so throttling pushes back on the uploader
+        return storage.putObject(bucket, key, request.getInputStream(), request.getContentLengthLong(),
+                request.getContentType(), request.getRemoteAddr());
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.mini_s3.controller;
+
+import com.example.mini_s3.model.S3Exception;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import java.util.Map;
+
+@RestControllerAdvice
+public class S3ExceptionHandler {
+
+    @ExceptionHandler(S3Exception.class)
+    public ResponseEntity<Map<String, String>> handle(S3Exception e) {
+        HttpStatus status = switch (e.getCode()) {
+            case "AccessDenied", "SignatureDoesNotMatch" -> HttpStatus.FORBIDDEN;
+            case "NoSuchBucket", "NoSuchKey" -> HttpStatus.NOT_FOUND;
+            case "SlowDown" -> HttpStatus.SERVICE_UNAVAILABLE;
+            default -> HttpStatus.BAD_REQUEST;
+        };
+        return ResponseEntity.status(status).body(Map.of(
+                "code", e.getCode(),
+                "message", e.getMessage(),
+                "resource", e.getResource() == null ? "" : e.getResource()));
+    }
+}
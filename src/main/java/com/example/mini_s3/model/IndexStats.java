@@ -0,0 +1,26 @@
+package com.example.mini_s3.model;
+
+import lombok.Data;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Data
+public class IndexStats {
+    private boolean snapshotLoaded;
+    private Instant snapshotCreatedAt;
+    private int snapshotBuckets;
+    private int loadedBuckets;
+    private long journalEntriesPending;
+
+    // Boot phases in the order they ran (snapshot.map, snapshot.verify, ...)
+    private Map<String, Double> startupPhasesMillis = new LinkedHashMap<>();
+
+    // Accumulated cost of lazily opening buckets after boot
+    private int bucketsFromSnapshot;
+    private int bucketsFromScan;
+    private double decodeMillis;
+    private double replayMillis;
+    private double scanMillis;
+    private long journalEntriesReplayed;
+}
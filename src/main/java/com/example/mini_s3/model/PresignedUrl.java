@@ -0,0 +1,17 @@
+package com.example.mini_s3.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PresignedUrl {
+    private String bucket;
+    private String key;
+    private String method; // GET or PUT
+    private String url;
+    private Instant expiresAt;
+}
@@ -0,0 +1,580 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.StorageProperties;
+import com.example.mini_s3.model.IndexStats;
+import com.example.mini_s3.model.ObjectMetadata;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory index of object metadata, keyed by bucket.
+ *
+ * On boot only the header of the snapshot file is read: it is memory-mapped and its
+ * bucket directory is checksummed, so startup cost does not depend on how many objects
+ * are stored. A bucket is opened on first access by decoding its section of the snapshot
+ * and replaying that bucket's journal, which records every change made since the snapshot
+ * was written. Buckets missing from the snapshot (or whose section fails its checksum)
+ * fall back to scanning their .meta.json files. Deleted buckets are recorded in a
+ * root-level journal until the next snapshot, so a bucket recreated under the same name
+ * never picks up the old bucket's section. A new snapshot is written in the background
+ * once the journals hold storage.snapshot-after-journal-entries entries, so they stay
+ * bounded even if the process never shuts down cleanly.
+ *
+ * Each snapshot is written to a new generation file (.index.snapshot.N) and published by
+ * atomically replacing the small .index.current pointer, so the file currently mapped is
+ * never overwritten or renamed; old generations are deleted once nothing maps them.
+ *
+ * Snapshot layout (big-endian):
+ *   magic, version, createdAt, bucketCount,
+ *   bucketCount x (name, offset, length, crc32),
+ *   headerCrc32,
+ *   sections (JSON array of ObjectMetadata per bucket)
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BucketIndex {
+    static final String SNAPSHOT_FILE = ".index.snapshot";
+    static final String CURRENT_FILE = ".index.current";
+    static final String JOURNAL_FILE = ".journal";
+    static final String DROPPED_FILE = ".index.dropped";
+    private static final int MAGIC = 0x4D533349; // "MS3I"
+    private static final int FORMAT_VERSION = 1;
+
+    private final StorageProperties props;
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+
+    // bucket -> its objects, for buckets opened since boot
+    private final Map<String, BucketEntries> loaded = new ConcurrentHashMap<>();
+    // bucket -> location of its section in the mapped snapshot, for buckets not opened yet
+    private final Map<String, Section> sections = new ConcurrentHashMap<>();
+    // Mutations hold the read lock so they run concurrently; writing a snapshot holds the write lock
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // Entries in the journals of loaded buckets, i.e. what the next snapshot would fold in
+    private final AtomicLong pendingJournalEntries = new AtomicLong();
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "index-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Double> startupPhases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final AtomicInteger bucketsFromSnapshot = new AtomicInteger();
+    private final AtomicInteger bucketsFromScan = new AtomicInteger();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong replayNanos = new AtomicLong();
+    private final AtomicLong scanNanos = new AtomicLong();
+    private final AtomicLong journalEntriesReplayed = new AtomicLong();
+
+    private volatile ByteBuffer snapshot;
+    private volatile Instant snapshotCreatedAt;
+    private volatile boolean dirty;
+    private volatile boolean booted;
+
+    private record Section(int offset, int length, int crc) {}
+
+    private record Body(byte[] bytes, int crc) {}
+
+    private record JournalEntry(String op, String key, ObjectMetadata meta) {}
+
+    /** One bucket's objects, keyed by object key and then version id. */
+    private static final class BucketEntries {
+        private final Map<String, Map<String, ObjectMetadata>> byKey = new ConcurrentHashMap<>();
+
+        void put(ObjectMetadata meta) {
+            // compute() so a concurrent remove() of the same key cannot detach the map being added to
+            byKey.compute(meta.getKey(), (k, versions) -> {
+                Map<String, ObjectMetadata> v = versions == null ? new ConcurrentHashMap<>() : versions;
+                v.put(meta.getVersionId(), meta);
+                return v;
+            });
+        }
+
+        void remove(String key) {
+            byKey.remove(key);
+        }
+
+        Collection<ObjectMetadata> versions(String key) {
+            Map<String, ObjectMetadata> versions = byKey.get(key);
+            return versions == null ? List.of() : versions.values();
+        }
+
+        List<ObjectMetadata> all() {
+            return byKey.values().stream().flatMap(v -> v.values().stream()).toList();
+        }
+    }
+
+    @PostConstruct
+    public void load() {
+        long start = System.nanoTime();
+        try {
+            mapSnapshot();
+            applyDrops();
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable index snapshot, buckets will be scanned on first access", e);
+            snapshot = null;
+            snapshotCreatedAt = null;
+            sections.clear();
+            dirty = true;
+        }
+        recordPhase("index.ready", start);
+        booted = true;
+        log.info("Index ready: {} buckets in snapshot, phases (ms) {}", sections.size(), startupPhases);
+    }
+
+    @PreDestroy
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (dirty) writeSnapshot();
+        } catch (IOException e) {
+            log.warn("Could not write index snapshot, journals will be replayed on next start", e);
+        }
+    }
+
+    public static String stem(String key, String versionId) {
+        return key.replace("/", "__") + "." + versionId;
+    }
+
+    public Collection<ObjectMetadata> objects(String bucket) throws IOException {
+        return bucket(bucket).all();
+    }
+
+    public List<ObjectMetadata> versions(String bucket, String key) throws IOException {
+        return List.copyOf(bucket(bucket).versions(key));
+    }
+
+    public Optional<ObjectMetadata> latest(String bucket, String key) throws IOException {
+        return bucket(bucket).versions(key).stream()
+                .max(Comparator.comparing(ObjectMetadata::getUploadedAt));
+    }
+
+    public void createBucket(String bucket) throws IOException {
+        snapshotLock.readLock().lock();
+        try {
+            bucket(bucket);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    public void put(ObjectMetadata meta) throws IOException {
+        snapshotLock.readLock().lock();
+        try {
+            BucketEntries entries = bucket(meta.getBucket());
+            appendJournal(meta.getBucket(), new JournalEntry("PUT", meta.getKey(), meta));
+            entries.put(meta);
+            dirty = true;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        snapshotIfDue();
+    }
+
+    public void remove(String bucket, String key) throws IOException {
+        snapshotLock.readLock().lock();
+        try {
+            BucketEntries entries = bucket(bucket);
+            appendJournal(bucket, new JournalEntry("DELETE", key, null));
+            entries.remove(key);
+            dirty = true;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        snapshotIfDue();
+    }
+
+    public void dropBucket(String bucket) throws IOException {
+        snapshotLock.readLock().lock();
+        try {
+            // The bucket's own journal goes with its directory, so the drop is recorded at the root
+            Files.createDirectories(props.getRoot());
+            Files.write(props.getRoot().resolve(DROPPED_FILE), (bucket + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            loaded.remove(bucket);
+            sections.remove(bucket);
+            dirty = true;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes every bucket to a new snapshot and truncates the journals it now covers.
+     * Buckets never opened since boot keep their existing section and journal as-is.
+     */
+    public void writeSnapshot() throws IOException {
+        snapshotLock.writeLock().lock();
+        try {
+            Map<String, Body> bodies = new TreeMap<>();
+            Set<String> serialized = new HashSet<>();
+            for (Map.Entry<String, BucketEntries> e : loaded.entrySet()) {
+                byte[] bytes = mapper.writeValueAsBytes(e.getValue().all());
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                bodies.put(e.getKey(), new Body(bytes, (int) crc.getValue()));
+                serialized.add(e.getKey());
+            }
+            for (Map.Entry<String, Section> e : sections.entrySet()) {
+                if (bodies.containsKey(e.getKey())) continue;
+                // Copied with its original checksum so a damaged section is still caught when opened
+                byte[] raw = new byte[e.getValue().length()];
+                snapshot.slice(e.getValue().offset(), raw.length).get(raw);
+                bodies.put(e.getKey(), new Body(raw, e.getValue().crc()));
+            }
+
+            Instant createdAt = Instant.now();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(header);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(createdAt.toEpochMilli());
+            out.writeInt(bodies.size());
+            int headerSize = 4 + 4 + 8 + 4 + 4;
+            for (String name : bodies.keySet()) {
+                headerSize += 2 + name.getBytes(StandardCharsets.UTF_8).length + 4 + 4 + 4;
+            }
+            int offset = headerSize;
+            for (Map.Entry<String, Body> e : bodies.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(offset);
+                out.writeInt(e.getValue().bytes().length);
+                out.writeInt(e.getValue().crc());
+                offset += e.getValue().bytes().length;
+            }
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(header.toByteArray());
+            out.writeInt((int) headerCrc.getValue());
+
+            Files.createDirectories(props.getRoot());
+            long generation = generations().stream().mapToLong(Long::longValue).max().orElse(0) + 1;
+            try (FileChannel ch = FileChannel.open(snapshotFile(generation), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ch.write(ByteBuffer.wrap(header.toByteArray()));
+                for (Body body : bodies.values()) {
+                    ch.write(ByteBuffer.wrap(body.bytes()));
+                }
+                ch.force(true);
+            }
+            // Only the pointer is replaced; the mapped generation stays where it is
+            Path tmp = props.getRoot().resolve(CURRENT_FILE + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ch.write(ByteBuffer.wrap(Long.toString(generation).getBytes(StandardCharsets.US_ASCII)));
+                ch.force(true);
+            }
+            Files.move(tmp, props.getRoot().resolve(CURRENT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (String bucket : serialized) {
+                Files.deleteIfExists(props.getRoot().resolve(bucket).resolve(JOURNAL_FILE));
+            }
+            // Dropped buckets are no longer in the snapshot
+            Files.deleteIfExists(props.getRoot().resolve(DROPPED_FILE));
+            mapSnapshot();
+            pendingJournalEntries.set(0);
+            dirty = false;
+            deleteOldGenerations(generation);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    public IndexStats stats() {
+        IndexStats stats = new IndexStats();
+        stats.setSnapshotLoaded(snapshot != null);
+        stats.setSnapshotCreatedAt(snapshotCreatedAt);
+        stats.setSnapshotBuckets(sections.size());
+        stats.setLoadedBuckets(loaded.size());
+        stats.setJournalEntriesPending(pendingJournalEntries.get());
+        synchronized (startupPhases) {
+            stats.setStartupPhasesMillis(new LinkedHashMap<>(startupPhases));
+        }
+        stats.setBucketsFromSnapshot(bucketsFromSnapshot.get());
+        stats.setBucketsFromScan(bucketsFromScan.get());
+        stats.setDecodeMillis(decodeNanos.get() / 1_000_000.0);
+        stats.setReplayMillis(replayNanos.get() / 1_000_000.0);
+        stats.setScanMillis(scanNanos.get() / 1_000_000.0);
+        stats.setJournalEntriesReplayed(journalEntriesReplayed.get());
+        return stats;
+    }
+
+    private BucketEntries bucket(String bucket) throws IOException {
+        BucketEntries entries = loaded.get(bucket);
+        if (entries != null) return entries;
+        // Opening replays the journal, so it must not interleave with a snapshot that truncates it
+        snapshotLock.readLock().lock();
+        try {
+            return loaded.computeIfAbsent(bucket, b -> {
+                try {
+                    return open(b);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private BucketEntries open(String bucket) throws IOException {
+        Path bucketPath = props.getRoot().resolve(bucket);
+        BucketEntries entries = new BucketEntries();
+        Section section = sections.get(bucket);
+        ByteBuffer mapped = snapshot;
+
+        if (section != null && mapped != null) {
+            long start = System.nanoTime();
+            ByteBuffer body = mapped.slice(section.offset(), section.length());
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            List<ObjectMetadata> metas = null;
+            if ((int) crc.getValue() != section.crc()) {
+                log.warn("Snapshot section for bucket {} failed its checksum, rescanning", bucket);
+            } else {
+                try {
+                    metas = mapper.readValue(new ByteBufferBackedInputStream(body),
+                            new TypeReference<List<ObjectMetadata>>() {});
+                } catch (IOException e) {
+                    log.warn("Snapshot section for bucket {} could not be decoded, rescanning", bucket, e);
+                }
+            }
+            if (metas != null) {
+                metas.forEach(entries::put);
+                decodeNanos.addAndGet(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                replayJournal(bucketPath.resolve(JOURNAL_FILE), entries);
+                replayNanos.addAndGet(System.nanoTime() - start);
+                bucketsFromSnapshot.incrementAndGet();
+                return entries;
+            }
+        }
+
+        long start = System.nanoTime();
+        if (Files.exists(bucketPath)) {
+            try (Stream<Path> s = Files.list(bucketPath)) {
+                s.filter(p -> p.getFileName().toString().endsWith(".meta.json"))
+                 .forEach(p -> {
+                     try {
+                         ObjectMetadata meta = mapper.readValue(p.toFile(), ObjectMetadata.class);
+                         entries.put(meta);
+                     } catch (Exception ignored) {}
+                 });
+            }
+        }
+        scanNanos.addAndGet(System.nanoTime() - start);
+        bucketsFromScan.incrementAndGet();
+        dirty = true;
+        return entries;
+    }
+
+    private void replayJournal(Path journal, BucketEntries entries) throws IOException {
+        if (!Files.exists(journal)) return;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JournalEntry entry;
+                try {
+                    entry = mapper.readValue(line, JournalEntry.class);
+                } catch (IOException e) {
+                    // Torn write from a crash mid-append; the entries around it are still valid
+                    log.warn("Skipping unreadable entry in {}", journal);
+                    continue;
+                }
+                if ("PUT".equals(entry.op()) && entry.meta() != null) {
+                    entries.put(entry.meta());
+                } else if ("DELETE".equals(entry.op())) {
+                    entries.remove(entry.key());
+                }
+                journalEntriesReplayed.incrementAndGet();
+                pendingJournalEntries.incrementAndGet();
+                dirty = true;
+            }
+        }
+    }
+
+    private void appendJournal(String bucket, JournalEntry entry) throws IOException {
+        byte[] line = (mapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+        Files.write(props.getRoot().resolve(bucket).resolve(JOURNAL_FILE), line,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        pendingJournalEntries.incrementAndGet();
+    }
+
+    /** Queues a background snapshot once the journals have grown past the configured size. */
+    private void snapshotIfDue() {
+        int limit = props.getSnapshotAfterJournalEntries();
+        if (limit <= 0 || pendingJournalEntries.get() < limit) return;
+        if (!snapshotScheduled.compareAndSet(false, true)) return;
+        try {
+            snapshotter.execute(() -> {
+                try {
+                    writeSnapshot();
+                } catch (IOException e) {
+                    log.warn("Could not write index snapshot, will retry after further changes", e);
+                } finally {
+                    snapshotScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; close() writes the final snapshot
+            snapshotScheduled.set(false);
+        }
+    }
+
+    private void mapSnapshot() throws IOException {
+        Path pointer = props.getRoot().resolve(CURRENT_FILE);
+        sections.clear();
+        snapshot = null;
+        snapshotCreatedAt = null;
+        if (!Files.exists(pointer)) {
+            return;
+        }
+        long generation;
+        try {
+            generation = Long.parseLong(Files.readString(pointer, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt snapshot pointer: " + pointer, e);
+        }
+        Path file = snapshotFile(generation);
+        if (!booted) {
+            // Nothing maps older generations yet, so leftovers from a previous run can go now
+            deleteOldGenerations(generation);
+        }
+
+        long start = System.nanoTime();
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("Snapshot too large to map: " + ch.size());
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        recordPhase("snapshot.map", start);
+
+        start = System.nanoTime();
+        Map<String, Section> directory = new HashMap<>();
+        Instant createdAt;
+        try {
+            if (buf.getInt() != MAGIC) throw new IOException("Not an index snapshot: " + file);
+            int version = buf.getInt();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+            createdAt = Instant.ofEpochMilli(buf.getLong());
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buf.getShort() & 0xFFFF];
+                buf.get(name);
+                directory.put(new String(name, StandardCharsets.UTF_8),
+                        new Section(buf.getInt(), buf.getInt(), buf.getInt()));
+            }
+            int headerEnd = buf.position();
+            int expected = buf.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().position(0).limit(headerEnd));
+            if ((int) crc.getValue() != expected) throw new IOException("Snapshot header checksum mismatch: " + file);
+            for (Section s : directory.values()) {
+                if (s.offset() < buf.position() || (long) s.offset() + s.length() > buf.capacity()) {
+                    throw new IOException("Snapshot section out of bounds: " + file);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt index snapshot: " + file, e);
+        }
+        recordPhase("snapshot.verify", start);
+
+        for (Map.Entry<String, Section> e : directory.entrySet()) {
+            if (!loaded.containsKey(e.getKey())) sections.put(e.getKey(), e.getValue());
+        }
+        snapshot = buf;
+        snapshotCreatedAt = createdAt;
+    }
+
+    private Path snapshotFile(long generation) {
+        return props.getRoot().resolve(SNAPSHOT_FILE + "." + generation);
+    }
+
+    private List<Long> generations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        if (!Files.isDirectory(props.getRoot())) return generations;
+        try (Stream<Path> s = Files.list(props.getRoot())) {
+            s.map(p -> p.getFileName().toString())
+             .filter(n -> n.startsWith(SNAPSHOT_FILE + "."))
+             .forEach(n -> {
+                 try {
+                     generations.add(Long.parseLong(n.substring(SNAPSHOT_FILE.length() + 1)));
+                 } catch (NumberFormatException ignored) {}
+             });
+        }
+        return generations;
+    }
+
+    private void deleteOldGenerations(long current) {
+        try {
+            for (long generation : generations()) {
+                if (generation == current) continue;
+                try {
+                    Files.deleteIfExists(snapshotFile(generation));
+                } catch (IOException e) {
+                    // Still mapped somewhere (Windows refuses to delete it); retried after the next snapshot
+                    log.debug("Could not delete old snapshot generation {}", generation, e);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Could not list old snapshot generations", e);
+        }
+    }
+
+    private void applyDrops() throws IOException {
+        Path dropped = props.getRoot().resolve(DROPPED_FILE);
+        if (!Files.exists(dropped)) return;
+        // A torn last line can only name a bucket that does not exist or cost one rescan
+        for (String bucket : Files.readAllLines(dropped, StandardCharsets.UTF_8)) {
+            if (sections.remove(bucket) != null) dirty = true;
+        }
+    }
+
+    private void recordPhase(String phase, long startNanos) {
+        if (booted) return;
+        startupPhases.put(phase, (System.nanoTime() - startNanos) / 1_000_000.0);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.TransferProperties;
+import com.example.mini_s3.model.PresignedUrl;
+import com.example.mini_s3.model.S3Exception;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+
+/**
+ * Issues and checks HMAC-SHA256 signed URLs that let a client GET or PUT one object
+ * directly against /presigned until the URL expires.
+ */
+@Service
+@Slf4j
+public class PresignService {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final TransferProperties props;
+    private final SecretKeySpec secret;
+
+    public PresignService(TransferProperties props) {
+        this.props = props;
+        byte[] key;
+        if (props.getPresignSecret() == null || props.getPresignSecret().isBlank()) {
+            log.warn("transfer.presign-secret is not set, presigned URLs will not survive a restart");
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        } else {
+            key = props.getPresignSecret().getBytes(StandardCharsets.UTF_8);
+        }
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+    }
+
+    public PresignedUrl presign(HttpMethod method, String bucket, String key, Duration expiresIn) {
+        if (method != HttpMethod.GET && method != HttpMethod.PUT) {
+            throw new S3Exception("InvalidArgument", "Only GET and PUT can be presigned", key);
+        }
+        Duration ttl = expiresIn == null ? props.getPresignDefaultExpiry() : expiresIn;
+        if (ttl.isNegative() || ttl.isZero() || ttl.compareTo(props.getPresignMaxExpiry()) > 0) {
+            throw new S3Exception("InvalidArgument",
+                    "Expiry must be between 1 second and " + props.getPresignMaxExpiry(), key);
+        }
+
+        Instant expiresAt = Instant.now().plus(ttl);
+        long expires = expiresAt.getEpochSecond();
+        String url = ServletUriComponentsBuilder.fromCurrentContextPath().toUriString()
+                + "/presigned/" + UriUtils.encodePathSegment(bucket, StandardCharsets.UTF_8)
+                + "?key=" + URLEncoder.encode(key, StandardCharsets.UTF_8)
+                + "&expires=" + expires
+                + "&signature=" + sign(method, bucket, key, expires);
+        return new PresignedUrl(bucket, key, method.name(), url, Instant.ofEpochSecond(expires));
+    }
+
+    public void verify(HttpMethod method, String bucket, String key, long expires, String signature) {
+        byte[] expected = sign(method, bucket, key, expires).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = signature.getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new S3Exception("SignatureDoesNotMatch", "The request signature does not match", key);
+        }
+        if (Instant.now().getEpochSecond() > expires) {
+            throw new S3Exception("AccessDenied", "Request has expired", key);
+        }
+    }
+
+    String sign(HttpMethod method, String bucket, String key, long expires) {
+        String payload = method.name() + "\n" + bucket + "\n" + key + "\n" + expires;
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            return HexFormat.of().formatHex(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+        }
+    }
+}
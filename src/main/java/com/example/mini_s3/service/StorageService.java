@@ -7,15 +7,19 @@ import com.example.mini_s3.model.ListObjectsResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.time.Instant;
 import java.util.*;
@@ -27,12 +31,14 @@ import java.io.OutputStream;
 @RequiredArgsConstructor
 public class StorageService {
     private final StorageProperties props;
+    private final BucketIndex index;
+    private final TransferScheduler scheduler;
     private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
-    private final Path root = Paths.get("storage");
 
     public void createBucket(String bucket) throws IOException {
         Path bucketPath = props.getRoot().resolve(bucket);
         Files.createDirectories(bucketPath);
+        index.createBucket(bucket);
     }
 
     public List<String> listBuckets() throws IOException {
@@ -44,84 +50,143 @@ public class StorageService {
         }
     }
 
-    public ObjectMetadata putObject(String bucket, String key, MultipartFile file) throws IOException {
+    public ObjectMetadata putObject(String bucket, String key, MultipartFile file, String client) throws IOException {
+        // Spring has already received the whole body, so holding it back now would only risk
+        // discarding a finished upload; its bytes are charged to the bandwidth budgets instead
+        Path bucketPath = requireBucket(bucket);
+        ObjectMetadata meta = store(bucketPath, bucket, key, file.getInputStream(), file.getContentType());
+        scheduler.record(bucket, client, meta.getSize());
+        return meta;
+    }
+
+    public ObjectMetadata putObject(String bucket, String key, InputStream body, long size, String contentType,
+                                    String client) throws IOException {
+        Path bucketPath;
+        try {
+            bucketPath = requireBucket(bucket);
+        } catch (NoSuchFileException e) {
+            body.close();
+            throw e;
+        }
+        return store(bucketPath, bucket, key, scheduler.open(body, size, bucket, client), contentType);
+    }
+
+    private Path requireBucket(String bucket) throws NoSuchFileException {
         Path bucketPath = props.getRoot().resolve(bucket);
         if (!Files.exists(bucketPath)) throw new NoSuchFileException("Bucket not found: " + bucket);
+        return bucketPath;
+    }
 
+    private ObjectMetadata store(Path bucketPath, String bucket, String key, InputStream body, String contentType)
+            throws IOException {
         String versionId = UUID.randomUUID().toString();
         String safeName = key.replace("/", "__");
         Path stored = bucketPath.resolve(safeName + "." + versionId + ".bin");
-        try (InputStream in = file.getInputStream()) {
+        try (InputStream in = body) {
             Files.copy(in, stored, StandardCopyOption.REPLACE_EXISTING);
         }
 
         ObjectMetadata meta = new ObjectMetadata();
         meta.setBucket(bucket);
         meta.setKey(key);
-        meta.setSize(file.getSize());
-        meta.setContentType(file.getContentType());
+        meta.setSize(Files.size(stored));
+        meta.setContentType(contentType);
         meta.setUploadedAt(Instant.now());
         meta.setVersionId(versionId);
 
         Path metaFile = bucketPath.resolve(safeName + "." + versionId + ".meta.json");
         mapper.writeValue(metaFile.toFile(), meta);
+        index.put(meta);
         return meta;
     }
 
     public List<ObjectMetadata> listObjects(String bucket) throws IOException {
         Path bucketPath = props.getRoot().resolve(bucket);
         if (!Files.exists(bucketPath)) throw new NoSuchFileException("Bucket not found: " + bucket);
-        try (Stream<Path> s = Files.list(bucketPath)) {
-            return s.filter(p -> p.getFileName().toString().endsWith(".meta.json"))
-                    .map(p -> {
-                        try {
-                            return mapper.readValue(p.toFile(), ObjectMetadata.class);
-                        } catch (Exception e) {
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .toList();
-        }
+        return List.copyOf(index.objects(bucket));
     }
 
-    public ResponseEntity<Resource> getObject(String bucket, String key) throws IOException {
+    public ResponseEntity<Resource> getObject(String bucket, String key, String range, boolean headOnly,
+                                              String client) throws IOException {
         Path bucketPath = props.getRoot().resolve(bucket);
         if (!Files.exists(bucketPath)) throw new NoSuchFileException("Bucket not found: " + bucket);
-        String prefix = key.replace("/", "__") + ".";
-        try (Stream<Path> s = Files.list(bucketPath)) {
-            Optional<Path> latest = s.filter(p -> p.getFileName().toString().startsWith(prefix) 
-                    && p.getFileName().toString().endsWith(".bin"))
-                    .max(Comparator.comparingLong(p -> p.toFile().lastModified()));
-            if (latest.isEmpty()) throw new NoSuchFileException("Object not found: " + key);
-            Path filePath = latest.get();
-            ByteArrayResource res = new ByteArrayResource(Files.readAllBytes(filePath));
-            return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" 
-                        + Paths.get(key).getFileName() + "\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(res);
+        Optional<ObjectMetadata> latest = index.latest(bucket, key);
+        if (latest.isEmpty()) throw new NoSuchFileException("Object not found: " + key);
+        Path filePath = bucketPath.resolve(BucketIndex.stem(key, latest.get().getVersionId()) + ".bin");
+        if (!Files.exists(filePath)) throw new NoSuchFileException("Object not found: " + key);
+        long size = Files.size(filePath);
+
+        // Single byte ranges are served as 206; malformed or multi-range headers get the whole object
+        long start = 0;
+        long length = size;
+        HttpStatus status = HttpStatus.OK;
+        List<HttpRange> ranges = List.of();
+        if (range != null) {
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException ignored) {}
+        }
+        if (ranges.size() == 1) {
+            try {
+                start = ranges.get(0).getRangeStart(size);
+                long end = ranges.get(0).getRangeEnd(size);
+                if (start > end) throw new IllegalArgumentException("Range starts past the end of the object");
+                length = end - start + 1;
+                status = HttpStatus.PARTIAL_CONTENT;
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
+            }
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" 
+                    + Paths.get(key).getFileName() + "\"")
+            .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .contentLength(length);
+        if (status == HttpStatus.PARTIAL_CONTENT) {
+            response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+        }
+        // HEAD only needs the headers, so it neither opens the file nor takes a slot or bandwidth
+        if (headOnly) return response.build();
+
+        SeekableByteChannel channel = Files.newByteChannel(filePath);
+        try {
+            channel.position(start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
         }
+        // Streamed rather than buffered; closing the stream (at the latest when the request
+        // completes) frees any transfer slot
+        InputStreamResource res = new InputStreamResource(
+                scheduler.open(Channels.newInputStream(channel), length, size, bucket, client));
+        return response.body(res);
     }
 
     public void deleteObject(String bucket, String key) throws IOException {
         Path bucketPath = props.getRoot().resolve(bucket);
-        String prefix = key.replace("/", "__") + ".";
-        try (Stream<Path> s = Files.list(bucketPath)) {
-            s.filter(p -> p.getFileName().toString().startsWith(prefix))
-             .forEach(p -> {
-                 try { Files.deleteIfExists(p); } catch (IOException ignored) {}
-             });
+        if (!Files.exists(bucketPath)) throw new NoSuchFileException("Bucket not found: " + bucket);
+        // Exact file names only: a prefix match on "a." would also take "a.txt"
+        for (ObjectMetadata meta : index.versions(bucket, key)) {
+            String stem = BucketIndex.stem(key, meta.getVersionId());
+            Files.deleteIfExists(bucketPath.resolve(stem + ".bin"));
+            Files.deleteIfExists(bucketPath.resolve(stem + ".meta.json"));
         }
+        index.remove(bucket, key);
     }
 
     public void deleteBucket(String bucket) throws IOException {
-        Path bucketPath = root.resolve(bucket);
+        Path bucketPath = props.getRoot().resolve(bucket);
+        index.dropBucket(bucket);
         if (Files.exists(bucketPath)) {
-            Files.walk(bucketPath)
-                .sorted(Comparator.reverseOrder())
-                .map(Path::toFile)
-                .forEach(File::delete);
+            try (Stream<Path> s = Files.walk(bucketPath)) {
+                s.sorted(Comparator.reverseOrder())
+                 .map(Path::toFile)
+                 .forEach(File::delete);
+            }
         }
     }
 
@@ -131,21 +196,9 @@ public class StorageService {
             throw new NoSuchFileException("Bucket not found: " + bucket);
         }
 
-        String prefix = key.replace("/", "__") + ".";
-        try (Stream<Path> s = Files.list(bucketPath)) {
-            return s.filter(p -> p.getFileName().toString().startsWith(prefix) 
-                    && p.getFileName().toString().endsWith(".meta.json"))
-                    .map(p -> {
-                        try {
-                            return mapper.readValue(p.toFile(), ObjectMetadata.class);
-                        } catch (Exception e) {
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .sorted(Comparator.comparing(ObjectMetadata::getUploadedAt).reversed())
-                    .collect(Collectors.toList());
-        }
+        return index.versions(bucket, key).stream()
+                .sorted(Comparator.comparing(ObjectMetadata::getUploadedAt).reversed())
+                .collect(Collectors.toList());
     }
 
     public void enableVersioning(String bucket) throws IOException {
@@ -216,6 +269,7 @@ public class StorageService {
 
         Path metaFile = bucketPath.resolve(safeName + "." + versionId + ".meta.json");
         mapper.writeValue(metaFile.toFile(), meta);
+        index.put(meta);
     }
     public ListObjectsResult listObjects(String bucket, String prefix, String delimiter, String continuationToken, int maxKeys) throws IOException {
         Path bucketPath = props.getRoot().resolve(bucket);
@@ -225,71 +279,61 @@ public class StorageService {
 
         ListObjectsResult result = new ListObjectsResult(bucket, prefix, delimiter, maxKeys);
 
-        try (Stream<Path> s = Files.list(bucketPath)) {
-            List<ObjectMetadata> allObjects = s.filter(p -> p.getFileName().toString().endsWith(".meta.json"))
-                    .map(p -> {
-                        try {
-                            return mapper.readValue(p.toFile(), ObjectMetadata.class);
-                        } catch (Exception e) {
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .filter(obj -> prefix == null || obj.getKey().startsWith(prefix))
-                    .sorted(Comparator.comparing(ObjectMetadata::getKey))
-                    .collect(Collectors.toList());
-
-            // Handle continuation token (pagination)
-            if (continuationToken != null) {
-                int startIndex = -1;
-                for (int i = 0; i < allObjects.size(); i++) {
-                    if (allObjects.get(i).getKey().equals(continuationToken)) {
-                        startIndex = i + 1;
-                        break;
-                    }
-                }
-                if (startIndex >= 0 && startIndex < allObjects.size()) {
-                    allObjects = allObjects.subList(startIndex, allObjects.size());
+        List<ObjectMetadata> allObjects = index.objects(bucket).stream()
+                .filter(obj -> prefix == null || obj.getKey().startsWith(prefix))
+                .sorted(Comparator.comparing(ObjectMetadata::getKey))
+                .collect(Collectors.toList());
+
+        // Handle continuation token (pagination)
+        if (continuationToken != null) {
+            int startIndex = -1;
+            for (int i = 0; i < allObjects.size(); i++) {
+                if (allObjects.get(i).getKey().equals(continuationToken)) {
+                    startIndex = i + 1;
+                    break;
                 }
             }
+            if (startIndex >= 0 && startIndex < allObjects.size()) {
+                allObjects = allObjects.subList(startIndex, allObjects.size());
+            }
+        }
 
-            // Handle delimiter-based listing (folder-like structure)
-            if (delimiter != null && !delimiter.isEmpty()) {
-                Set<String> prefixes = new HashSet<>();
-                List<ObjectMetadata> filteredObjects = new ArrayList<>();
-
-                for (ObjectMetadata obj : allObjects) {
-                    String key = obj.getKey();
-                    if (!key.startsWith(prefix == null ? "" : prefix)) {
-                        continue;
-                    }
-
-                    String remainingKey = key.substring(prefix == null ? 0 : prefix.length());
-                    int delimiterIndex = remainingKey.indexOf(delimiter);
-
-                    if (delimiterIndex >= 0) {
-                        prefixes.add(prefix == null ? remainingKey.substring(0, delimiterIndex + 1) 
-                                : prefix + remainingKey.substring(0, delimiterIndex + 1));
-                    } else {
-                        filteredObjects.add(obj);
-                    }
+        // Handle delimiter-based listing (folder-like structure)
+        if (delimiter != null && !delimiter.isEmpty()) {
+            Set<String> prefixes = new HashSet<>();
+            List<ObjectMetadata> filteredObjects = new ArrayList<>();
+
+            for (ObjectMetadata obj : allObjects) {
+                String key = obj.getKey();
+                if (!key.startsWith(prefix == null ? "" : prefix)) {
+                    continue;
                 }
 
-                result.setObjects(filteredObjects);
-                result.setCommonPrefixes(new ArrayList<>(prefixes));
-            } else {
-                result.setObjects(allObjects);
-            }
+                String remainingKey = key.substring(prefix == null ? 0 : prefix.length());
+                int delimiterIndex = remainingKey.indexOf(delimiter);
 
-            // Handle pagination
-            if (maxKeys > 0 && result.getObjects().size() > maxKeys) {
-                result.setTruncated(true);
-                String lastKey = result.getObjects().get(maxKeys - 1).getKey();
-                result.setNextContinuationToken(lastKey);
-                result.setObjects(result.getObjects().subList(0, maxKeys));
+                if (delimiterIndex >= 0) {
+                    prefixes.add(prefix == null ? remainingKey.substring(0, delimiterIndex + 1) 
+                            : prefix + remainingKey.substring(0, delimiterIndex + 1));
+                } else {
+                    filteredObjects.add(obj);
+                }
             }
 
-            return result;
+            result.setObjects(filteredObjects);
+            result.setCommonPrefixes(new ArrayList<>(prefixes));
+        } else {
+            result.setObjects(allObjects);
         }
+
+        // Handle pagination
+        if (maxKeys > 0 && result.getObjects().size() > maxKeys) {
+            result.setTruncated(true);
+            String lastKey = result.getObjects().get(maxKeys - 1).getKey();
+            result.setNextContinuationToken(lastKey);
+            result.setObjects(result.getObjects().subList(0, maxKeys));
+        }
+
+        return result;
     }
 }
\ No newline at end of file
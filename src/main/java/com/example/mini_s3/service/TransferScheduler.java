@@ -0,0 +1,331 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.TransferProperties;
+import com.example.mini_s3.model.S3Exception;
+
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies QoS to object bodies streamed through the service.
+ *
+ * Every transfer is charged against a token bucket for its S3 bucket and one for its
+ * client. Small transfers are admitted immediately and may overdraw those buckets by up
+ * to one second of bandwidth, so their latency does not depend on bulk traffic; the debt
+ * is paid back by large transfers, which wait for a positive balance before each chunk.
+ * Large transfers additionally queue (FIFO) for one of a fixed number of slots. Each
+ * client may hold or wait for only a few of those slots, and the queue itself is bounded,
+ * so one client cannot take every slot and overload is answered with SlowDown instead of
+ * parked request threads.
+ *
+ * Token buckets are created per bucket name and per client address on demand, and a
+ * periodic sweep drops those that no open transfer uses and that have refilled to full;
+ * a new bucket starts full, so dropping one changes nothing but memory.
+ */
+@Service
+public class TransferScheduler {
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final TransferProperties props;
+    private final Semaphore largeSlots;
+    private final AtomicInteger queuedLarge = new AtomicInteger();
+    // client -> large transfers it has open or queued; entries are removed when they reach zero
+    private final Map<String, AtomicInteger> largePerClient = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> bucketLimits = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> clientLimits = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    public TransferScheduler(TransferProperties props) {
+        this.props = props;
+        this.largeSlots = new Semaphore(Math.max(1, props.getMaxConcurrentLarge()), true);
+    }
+
+    /**
+     * Wraps an object body so reads from it are throttled. For large transfers this blocks
+     * until a slot frees up, or throws SlowDown (closing {@code in}) when the client is at
+     * its limit or the queue is full; the slot is released when the returned stream is
+     * closed, or when the current web request completes if nothing closed it before then.
+     *
+     * @param size bytes to pass through before reporting end of stream, or -1 to read
+     *             {@code in} to its end (treated as large)
+     */
+    public InputStream open(InputStream in, long size, String bucket, String client) throws IOException {
+        return open(in, size, size, bucket, client);
+    }
+
+    /**
+     * Like {@link #open(InputStream, long, String, String)} for part of an object. Whether
+     * the transfer counts as small is decided by {@code objectSize}, so a large object
+     * fetched as many small ranges is still bulk traffic and takes a slot per range.
+     */
+    public InputStream open(InputStream in, long size, long objectSize, String bucket, String client)
+            throws IOException {
+        boolean small = size >= 0 && objectSize >= 0 && objectSize <= props.getSmallObjectThreshold().toBytes();
+        String clientName = client == null ? "anonymous" : client;
+        if (!small) {
+            try {
+                admitLarge(bucket, clientName);
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+        evictIdleIfDue();
+        ThrottledInputStream stream = new ThrottledInputStream(in, size, small, clientName,
+                retain(bucketLimits, bucket, props.getBucketBandwidth().toBytes()),
+                retain(clientLimits, clientName, props.getClientBandwidth().toBytes()));
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null) {
+            // Error paths can skip the converter that normally closes the body
+            request.registerDestructionCallback("transfer." + UUID.randomUUID(), stream::closeQuietly,
+                    RequestAttributes.SCOPE_REQUEST);
+        }
+        return stream;
+    }
+
+    /**
+     * Charges bytes that have already been transferred, such as a multipart body Spring
+     * received before the controller ran. Never waits and takes no slot; the balance is only
+     * drained down to zero, so the charge slows the client's later bulk transfers but leaves
+     * no debt that small ones would wait on.
+     */
+    public void record(String bucket, String client, long bytes) {
+        drain(bucketLimits, bucket, props.getBucketBandwidth().toBytes(), bytes);
+        drain(clientLimits, client == null ? "anonymous" : client, props.getClientBandwidth().toBytes(), bytes);
+    }
+
+    private void admitLarge(String bucket, String client) throws IOException {
+        AtomicInteger mine = largePerClient.compute(client, (c, n) -> {
+            AtomicInteger count = n == null ? new AtomicInteger() : n;
+            count.incrementAndGet();
+            return count;
+        });
+        boolean admitted = false;
+        try {
+            if (mine.get() > Math.max(1, props.getMaxLargePerClient())) {
+                throw new S3Exception("SlowDown", "Too many large transfers from this client, retry later", bucket);
+            }
+            // Timed even when not waiting: the untimed tryAcquire() would jump the fair queue
+            admitted = largeSlots.tryAcquire(0, TimeUnit.MILLISECONDS);
+            if (!admitted) {
+                if (queuedLarge.incrementAndGet() > props.getMaxQueuedLarge()) {
+                    queuedLarge.decrementAndGet();
+                    throw new S3Exception("SlowDown", "Too many large transfers waiting, retry later", bucket);
+                }
+                try {
+                    admitted = largeSlots.tryAcquire(props.getLargeQueueTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                } finally {
+                    queuedLarge.decrementAndGet();
+                }
+                if (!admitted) {
+                    throw new S3Exception("SlowDown", "Too many large transfers in progress, retry later", bucket);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a transfer slot");
+        } finally {
+            if (!admitted) releaseClient(client);
+        }
+    }
+
+    private void releaseClient(String client) {
+        largePerClient.computeIfPresent(client, (c, n) -> n.decrementAndGet() == 0 ? null : n);
+    }
+
+    /** Drops token buckets that are unused and full. Runs at most once a minute from {@link #open}. */
+    void evictIdle() {
+        evictIdle(bucketLimits);
+        evictIdle(clientLimits);
+    }
+
+    int trackedLimits() {
+        return bucketLimits.size() + clientLimits.size();
+    }
+
+    private void evictIdleIfDue() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+            evictIdle();
+        }
+    }
+
+    private static void evictIdle(Map<String, TokenBucket> limits) {
+        for (String name : limits.keySet()) {
+            // Same per-key lock as retain(), so a bucket cannot be dropped while it is being handed out
+            limits.computeIfPresent(name, (n, b) -> b.idle() ? null : b);
+        }
+    }
+
+    private static TokenBucket retain(Map<String, TokenBucket> limits, String name, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) return null;
+        return limits.compute(name, (n, b) -> {
+            TokenBucket bucket = b == null ? new TokenBucket(bytesPerSecond) : b;
+            bucket.users.incrementAndGet();
+            return bucket;
+        });
+    }
+
+    private static void drain(Map<String, TokenBucket> limits, String name, long bytesPerSecond, long bytes) {
+        if (bytesPerSecond <= 0) return;
+        limits.compute(name, (n, b) -> {
+            TokenBucket bucket = b == null ? new TokenBucket(bytesPerSecond) : b;
+            bucket.drain(bytes);
+            return bucket;
+        });
+    }
+
+    private final class ThrottledInputStream extends FilterInputStream {
+        private final boolean small;
+        private final String client;
+        private final TokenBucket bucketLimit;
+        private final TokenBucket clientLimit;
+        private final int chunk;
+        private long remaining;
+        private boolean closed;
+
+        ThrottledInputStream(InputStream in, long size, boolean small, String client, TokenBucket bucketLimit,
+                             TokenBucket clientLimit) {
+            super(in);
+            this.remaining = size < 0 ? Long.MAX_VALUE : size;
+            this.small = small;
+            this.client = client;
+            this.bucketLimit = bucketLimit;
+            this.clientLimit = clientLimit;
+            // No read may cost more than a full burst, so bulk reads never leave the balance negative
+            long max = CHUNK_SIZE;
+            if (bucketLimit != null) max = Math.min(max, bucketLimit.capacity);
+            if (clientLimit != null) max = Math.min(max, clientLimit.capacity);
+            this.chunk = (int) Math.max(1, max);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) charge(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining <= 0) return -1;
+            int n = super.read(buf, off, (int) Math.min(Math.min(len, chunk), remaining));
+            if (n > 0) charge(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(Math.min(n, chunk), remaining));
+            if (skipped > 0) charge(skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void charge(long bytes) throws IOException {
+            remaining -= bytes;
+            try {
+                if (clientLimit != null) clientLimit.acquire(bytes, small);
+                if (bucketLimit != null) bucketLimit.acquire(bytes, small);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed) {
+                    if (!small) {
+                        largeSlots.release();
+                        releaseClient(client);
+                    }
+                    if (bucketLimit != null) bucketLimit.users.decrementAndGet();
+                    if (clientLimit != null) clientLimit.users.decrementAndGet();
+                }
+                closed = true;
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    static final class TokenBucket {
+        private final long rate;     // bytes per second
+        private final long capacity; // burst size, one second of bandwidth
+        private final AtomicInteger users = new AtomicInteger(); // open transfers charging this bucket
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(long bytesPerSecond) {
+            this.rate = bytesPerSecond;
+            this.capacity = bytesPerSecond;
+            this.tokens = bytesPerSecond;
+        }
+
+        /**
+         * Takes {@code bytes} tokens. Priority callers only wait once the bucket is a full
+         * burst in debt; others wait until the balance covers their chunk.
+         */
+        synchronized void acquire(long bytes, boolean priority) throws InterruptedException {
+            while (true) {
+                refill();
+                double needed = priority ? -capacity : Math.min(bytes, capacity);
+                if (tokens >= needed) {
+                    tokens -= bytes;
+                    return;
+                }
+                long waitNanos = (long) Math.ceil((needed - tokens) * 1_000_000_000L / rate);
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, 1_000_000L));
+            }
+        }
+
+        synchronized void drain(long bytes) {
+            refill();
+            if (tokens > 0) tokens = Math.max(0, tokens - bytes);
+        }
+
+        synchronized boolean idle() {
+            refill();
+            return users.get() == 0 && tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * (double) rate / 1_000_000_000L);
+            lastRefill = now;
+        }
+    }
+}
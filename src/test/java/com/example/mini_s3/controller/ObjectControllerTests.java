@@ -0,0 +1,115 @@
+package com.example.mini_s3.controller;
+
+import com.example.mini_s3.service.TransferScheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// One large-transfer slot, so any request that fails to hand it back turns the next into 503 SlowDown
+@SpringBootTest
+@AutoConfigureMockMvc
+@DirtiesContext
+class ObjectControllerTests {
+
+	@TempDir
+	static Path root;
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("storage.root", () -> root.toString());
+		registry.add("transfer.max-concurrent-large", () -> "1");
+		registry.add("transfer.small-object-threshold", () -> "1KB");
+		registry.add("transfer.large-queue-timeout", () -> "100ms");
+	}
+
+	@Autowired
+	MockMvc mvc;
+
+	@Autowired
+	TransferScheduler scheduler;
+
+	final byte[] body = new byte[4096];
+
+	@BeforeEach
+	void setUp() throws Exception {
+		for (int i = 0; i < body.length; i++) body[i] = (byte) i;
+		mvc.perform(post("/buckets/docs"));
+		mvc.perform(multipart("/buckets/docs/objects").file(new MockMultipartFile("file", body)).param("key", "big.bin"))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void servesSingleRangeAsPartialContent() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			byte[] part = mvc.perform(get("/buckets/docs/objects/big.bin").header(HttpHeaders.RANGE, "bytes=1000-2999"))
+					.andExpect(status().isPartialContent())
+					.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1000-2999/4096"))
+					.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 2000))
+					.andReturn().getResponse().getContentAsByteArray();
+			assertArrayEquals(Arrays.copyOfRange(body, 1000, 3000), part);
+		}
+		expectFullBody();
+	}
+
+	@Test
+	void rejectsUnsatisfiableRangeWithoutHoldingASlot() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			mvc.perform(get("/buckets/docs/objects/big.bin").header(HttpHeaders.RANGE, "bytes=5000-6000"))
+					.andExpect(status().isRequestedRangeNotSatisfiable())
+					.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */4096"));
+		}
+		expectFullBody();
+	}
+
+	@Test
+	void servesWholeObjectForMultipleOrMalformedRanges() throws Exception {
+		for (String range : new String[] {"bytes=0-10,20-30", "bytes=abc", "items=0-10"}) {
+			byte[] all = mvc.perform(get("/buckets/docs/objects/big.bin").header(HttpHeaders.RANGE, range))
+					.andExpect(status().isOk())
+					.andReturn().getResponse().getContentAsByteArray();
+			assertArrayEquals(body, all);
+		}
+		expectFullBody();
+	}
+
+	@Test
+	void answersHeadWithoutTakingASlot() throws Exception {
+		// Hold the only large slot; a HEAD that tried to stream would get 503 SlowDown
+		try (InputStream held = scheduler.open(new ByteArrayInputStream(body), body.length, "docs", "other")) {
+			byte[] content = mvc.perform(head("/buckets/docs/objects/big.bin"))
+					.andExpect(status().isOk())
+					.andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4096))
+					.andReturn().getResponse().getContentAsByteArray();
+			assertEquals(0, content.length);
+			mvc.perform(head("/buckets/docs/objects/big.bin").header(HttpHeaders.RANGE, "bytes=0-1999"))
+					.andExpect(status().isPartialContent())
+					.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-1999/4096"));
+		}
+		expectFullBody();
+	}
+
+	private void expectFullBody() throws Exception {
+		byte[] all = mvc.perform(get("/buckets/docs/objects/big.bin"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andReturn().getResponse().getContentAsByteArray();
+		assertArrayEquals(body, all);
+	}
+}
@@ -0,0 +1,259 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.StorageProperties;
+import com.example.mini_s3.model.IndexStats;
+import com.example.mini_s3.model.ObjectMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketIndexTests {
+
+	@TempDir
+	Path root;
+
+	StorageProperties props;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		props = new StorageProperties();
+		props.setRoot(root);
+		Files.createDirectories(root.resolve("photos"));
+		Files.createDirectories(root.resolve("docs"));
+	}
+
+	@Test
+	void scansBucketsWhenNoSnapshotExists() throws Exception {
+		ObjectMetadata meta = meta("docs", "a.txt", "v1");
+		new ObjectMapper().findAndRegisterModules()
+				.writeValue(root.resolve("docs").resolve("a.txt.v1.meta.json").toFile(), meta);
+
+		BucketIndex index = open();
+		assertEquals(1, index.objects("docs").size());
+		assertEquals(1, index.stats().getBucketsFromScan());
+	}
+
+	@Test
+	void opensBucketsLazilyFromSnapshotAndReplaysJournal() throws Exception {
+		BucketIndex first = open();
+		first.put(meta("photos", "cat.png", "v1"));
+		first.put(meta("docs", "a.txt", "v1"));
+		first.close();
+		assertTrue(Files.exists(snapshotFile()));
+		assertFalse(Files.exists(root.resolve("photos").resolve(BucketIndex.JOURNAL_FILE)));
+
+		// Changes after the snapshot only land in the journal, as after a crash
+		BucketIndex second = open();
+		second.put(meta("photos", "dog.png", "v2"));
+		second.remove("photos", "cat.png");
+
+		BucketIndex third = open();
+		IndexStats stats = third.stats();
+		assertTrue(stats.isSnapshotLoaded());
+		assertEquals(2, stats.getSnapshotBuckets());
+		assertEquals(0, stats.getLoadedBuckets());
+
+		assertEquals("dog.png", third.latest("photos", "dog.png").orElseThrow().getKey());
+		assertTrue(third.latest("photos", "cat.png").isEmpty());
+		stats = third.stats();
+		assertEquals(1, stats.getLoadedBuckets());
+		assertEquals(1, stats.getBucketsFromSnapshot());
+		assertEquals(2, stats.getJournalEntriesReplayed());
+
+		// docs was never opened, so its section is carried over untouched
+		third.close();
+		BucketIndex fourth = open();
+		assertEquals(1, fourth.objects("docs").size());
+		assertEquals(1, fourth.objects("photos").size());
+		assertEquals(0, fourth.stats().getJournalEntriesReplayed());
+	}
+
+	@Test
+	void fallsBackToScanWhenSnapshotIsCorrupt() throws Exception {
+		BucketIndex first = open();
+		first.put(meta("docs", "a.txt", "v1"));
+		first.close();
+
+		try (RandomAccessFile f = new RandomAccessFile(snapshotFile().toFile(), "rw")) {
+			f.seek(20);
+			f.write(0x7F);
+		}
+
+		BucketIndex second = open();
+		assertFalse(second.stats().isSnapshotLoaded());
+		assertEquals(0, second.objects("docs").size()); // no .meta.json on disk in this test
+		assertEquals(1, second.stats().getBucketsFromScan());
+	}
+
+	@Test
+	void droppedBucketStaysDroppedAfterCrash() throws Exception {
+		BucketIndex first = open();
+		first.put(meta("docs", "a.txt", "v1"));
+		first.close();
+
+		BucketIndex second = open();
+		second.dropBucket("docs");
+		deleteRecursively(root.resolve("docs"));
+		Files.createDirectories(root.resolve("docs"));
+		second.createBucket("docs");
+		// no close(): the process dies before the next snapshot
+
+		BucketIndex third = open();
+		assertEquals(0, third.objects("docs").size());
+		assertEquals(1, third.stats().getBucketsFromScan());
+
+		// The next snapshot covers the drop, so the tombstone is no longer needed
+		third.close();
+		assertFalse(Files.exists(root.resolve(BucketIndex.DROPPED_FILE)));
+		assertEquals(0, open().objects("docs").size());
+	}
+
+	@Test
+	void writesSnapshotOnceJournalsReachConfiguredSize() throws Exception {
+		props.setSnapshotAfterJournalEntries(3);
+		BucketIndex index = open();
+		index.put(meta("docs", "a.txt", "v1"));
+		index.put(meta("docs", "b.txt", "v1"));
+		assertEquals(2, index.stats().getJournalEntriesPending());
+		assertNull(index.stats().getSnapshotCreatedAt());
+
+		index.remove("docs", "a.txt");
+		long deadline = System.nanoTime() + 5_000_000_000L;
+		while (index.stats().getSnapshotCreatedAt() == null && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNotNull(index.stats().getSnapshotCreatedAt());
+		assertEquals(0, index.stats().getJournalEntriesPending());
+		assertFalse(Files.exists(root.resolve("docs").resolve(BucketIndex.JOURNAL_FILE)));
+
+		// no close(): the background snapshot alone is enough to recover from
+		BucketIndex reopened = open();
+		assertEquals(1, reopened.objects("docs").size());
+		assertEquals(0, reopened.stats().getJournalEntriesReplayed());
+	}
+
+	@Test
+	void keepsChecksumOfUnopenedSectionsAcrossSnapshots() throws Exception {
+		BucketIndex first = open();
+		first.put(meta("docs", "a.txt", "v1"));
+		first.put(meta("photos", "cat.png", "v1"));
+		first.close();
+
+		// Damage docs in place, leaving the stored checksum stale
+		byte[] file = Files.readAllBytes(snapshotFile());
+		int at = indexOf(file, "a.txt".getBytes(StandardCharsets.UTF_8));
+		file[at] = 'b';
+		Files.write(snapshotFile(), file);
+
+		// Rewrite the snapshot without ever opening docs
+		BucketIndex second = open();
+		second.put(meta("photos", "dog.png", "v2"));
+		second.close();
+
+		BucketIndex third = open();
+		assertTrue(third.stats().isSnapshotLoaded());
+		assertEquals(0, third.objects("docs").size()); // rescanned, not decoded as "b.txt"
+		assertEquals(1, third.stats().getBucketsFromScan());
+		assertEquals(2, third.objects("photos").size());
+	}
+
+	@Test
+	void fallsBackToScanWhenSectionCannotBeDecoded() throws Exception {
+		BucketIndex first = open();
+		first.put(meta("docs", "a.txt", "v1"));
+		first.close();
+
+		// Valid checksums over a body that is not a metadata list
+		byte[] file = Files.readAllBytes(snapshotFile());
+		ByteBuffer buf = ByteBuffer.wrap(file);
+		buf.position(20);
+		buf.position(buf.position() + 2 + buf.getShort(20));
+		int offset = buf.getInt();
+		int length = buf.getInt();
+		int crcAt = buf.position();
+		file[offset] = '{';
+		buf.putInt(crcAt, crc(file, offset, length));
+		int headerEnd = crcAt + 4;
+		buf.putInt(headerEnd, crc(file, 0, headerEnd));
+		Files.write(snapshotFile(), file);
+
+		BucketIndex second = open();
+		assertTrue(second.stats().isSnapshotLoaded());
+		assertEquals(0, second.objects("docs").size());
+		assertEquals(1, second.stats().getBucketsFromScan());
+	}
+
+	@Test
+	void publishesEachSnapshotAsANewGeneration() throws Exception {
+		BucketIndex first = open();
+		first.put(meta("docs", "a.txt", "v1"));
+		first.put(meta("photos", "cat.png", "v1"));
+		first.close();
+
+		BucketIndex second = open();
+		Path mapped = snapshotFile();
+		second.put(meta("photos", "dog.png", "v2"));
+		second.writeSnapshot();
+		assertNotEquals(mapped, snapshotFile());
+
+		// docs was still unopened, so its section was copied out of the old mapping
+		assertEquals(1, second.objects("docs").size());
+		try (var files = Files.list(root)) {
+			assertEquals(1, files.filter(p -> p.getFileName().toString().startsWith(BucketIndex.SNAPSHOT_FILE)).count());
+		}
+	}
+
+	private Path snapshotFile() throws Exception {
+		String generation = Files.readString(root.resolve(BucketIndex.CURRENT_FILE)).trim();
+		return root.resolve(BucketIndex.SNAPSHOT_FILE + "." + generation);
+	}
+
+	private static void deleteRecursively(Path dir) throws Exception {
+		try (var files = Files.walk(dir)) {
+			for (Path p : files.sorted(java.util.Comparator.reverseOrder()).toList()) Files.delete(p);
+		}
+	}
+
+	private static int indexOf(byte[] haystack, byte[] needle) {
+		outer:
+		for (int i = 0; i <= haystack.length - needle.length; i++) {
+			for (int j = 0; j < needle.length; j++) {
+				if (haystack[i + j] != needle[j]) continue outer;
+			}
+			return i;
+		}
+		throw new AssertionError("not found");
+	}
+
+	private static int crc(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private BucketIndex open() {
+		BucketIndex index = new BucketIndex(props);
+		index.load();
+		return index;
+	}
+
+	private static ObjectMetadata meta(String bucket, String key, String versionId) {
+		ObjectMetadata meta = new ObjectMetadata();
+		meta.setBucket(bucket);
+		meta.setKey(key);
+		meta.setVersionId(versionId);
+		meta.setSize(1);
+		meta.setUploadedAt(Instant.now());
+		return meta;
+	}
+}
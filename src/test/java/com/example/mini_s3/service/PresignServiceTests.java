@@ -0,0 +1,59 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.TransferProperties;
+import com.example.mini_s3.model.S3Exception;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresignServiceTests {
+
+	private final PresignService presign = service("test-secret");
+
+	@Test
+	void acceptsValidSignature() {
+		long expires = Instant.now().plusSeconds(60).getEpochSecond();
+		String sig = presign.sign(HttpMethod.GET, "photos", "a/b c+d.png", expires);
+		assertDoesNotThrow(() -> presign.verify(HttpMethod.GET, "photos", "a/b c+d.png", expires, sig));
+	}
+
+	@Test
+	void rejectsTamperedRequests() {
+		long expires = Instant.now().plusSeconds(60).getEpochSecond();
+		String sig = presign.sign(HttpMethod.GET, "photos", "cat.png", expires);
+
+		assertEquals("SignatureDoesNotMatch", assertThrows(S3Exception.class,
+				() -> presign.verify(HttpMethod.GET, "photos", "dog.png", expires, sig)).getCode());
+		assertEquals("SignatureDoesNotMatch", assertThrows(S3Exception.class,
+				() -> presign.verify(HttpMethod.PUT, "photos", "cat.png", expires, sig)).getCode());
+		assertEquals("SignatureDoesNotMatch", assertThrows(S3Exception.class,
+				() -> presign.verify(HttpMethod.GET, "photos", "cat.png", expires + 3600, sig)).getCode());
+		assertEquals("SignatureDoesNotMatch", assertThrows(S3Exception.class,
+				() -> service("other-secret").verify(HttpMethod.GET, "photos", "cat.png", expires, sig)).getCode());
+	}
+
+	@Test
+	void rejectsExpiredUrls() {
+		long expires = Instant.now().minusSeconds(1).getEpochSecond();
+		String sig = presign.sign(HttpMethod.GET, "photos", "cat.png", expires);
+		assertEquals("AccessDenied", assertThrows(S3Exception.class,
+				() -> presign.verify(HttpMethod.GET, "photos", "cat.png", expires, sig)).getCode());
+	}
+
+	@Test
+	void rejectsExpiryBeyondMaximum() {
+		assertEquals("InvalidArgument", assertThrows(S3Exception.class,
+				() -> presign.presign(HttpMethod.GET, "photos", "cat.png", Duration.ofDays(30))).getCode());
+		assertEquals("InvalidArgument", assertThrows(S3Exception.class,
+				() -> presign.presign(HttpMethod.DELETE, "photos", "cat.png", null)).getCode());
+	}
+
+	private static PresignService service(String secret) {
+		TransferProperties props = new TransferProperties();
+		props.setPresignSecret(secret);
+		return new PresignService(props);
+	}
+}
@@ -0,0 +1,71 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.StorageProperties;
+import com.example.mini_s3.config.TransferProperties;
+import com.example.mini_s3.model.ObjectMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageServiceTests {
+
+	@TempDir
+	Path root;
+
+	StorageService storage;
+	TransferScheduler scheduler;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		StorageProperties props = new StorageProperties();
+		props.setRoot(root);
+		BucketIndex index = new BucketIndex(props);
+		index.load();
+		TransferProperties transfer = new TransferProperties();
+		transfer.setSmallObjectThreshold(DataSize.ofBytes(1024));
+		transfer.setMaxConcurrentLarge(1);
+		scheduler = new TransferScheduler(transfer);
+		storage = new StorageService(props, index, scheduler);
+		storage.createBucket("docs");
+	}
+
+	@Test
+	void deleteRemovesOnlyTheExactKey() throws Exception {
+		put("a");
+		ObjectMetadata kept = put("a.txt");
+
+		storage.deleteObject("docs", "a");
+
+		assertEquals(1, storage.listObjects("docs").size());
+		assertEquals("a.txt", storage.listObjects("docs").get(0).getKey());
+		String stem = BucketIndex.stem("a.txt", kept.getVersionId());
+		assertTrue(Files.exists(root.resolve("docs").resolve(stem + ".bin")));
+		assertTrue(Files.exists(root.resolve("docs").resolve(stem + ".meta.json")));
+		try (var files = Files.list(root.resolve("docs"))) {
+			assertTrue(files.noneMatch(p -> p.getFileName().toString().matches("a\\.[0-9a-f-]{36}\\..*")));
+		}
+	}
+
+	@Test
+	void multipartUploadDoesNotWaitForALargeSlot() throws Exception {
+		try (InputStream held = scheduler.open(new ByteArrayInputStream(new byte[4096]), 4096, "docs", "other")) {
+			// The body is already on the server, so it is stored rather than queued or rejected
+			ObjectMetadata meta = storage.putObject("docs", "big.bin",
+					new MockMultipartFile("file", "big.bin", "application/octet-stream", new byte[4096]), "test");
+			assertEquals(4096, meta.getSize());
+		}
+	}
+
+	private ObjectMetadata put(String key) throws Exception {
+		byte[] body = key.getBytes();
+		return storage.putObject("docs", key, new ByteArrayInputStream(body), body.length, "text/plain", "test");
+	}
+}
@@ -0,0 +1,222 @@
+package com.example.mini_s3.service;
+
+import com.example.mini_s3.config.TransferProperties;
+import com.example.mini_s3.model.S3Exception;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferSchedulerTests {
+
+	@Test
+	void enforcesConfiguredRate() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(100_000, 1));
+		long start = System.nanoTime();
+		try (InputStream in = scheduler.open(body(250_000), 250_000, "docs", "client")) {
+			assertEquals(250_000, in.readAllBytes().length);
+		}
+		// One second of burst, then the remaining 150KB at 100KB/s
+		double seconds = (System.nanoTime() - start) / 1e9;
+		assertTrue(seconds >= 1.2, "finished too fast: " + seconds + "s");
+		assertTrue(seconds < 5, "finished too slow: " + seconds + "s");
+	}
+
+	@Test
+	void smallTransfersAreNotDelayedBehindBulk() throws Exception {
+		// 1KB takes 100ms of this budget, so anything that queues behind bulk shows up
+		TransferScheduler scheduler = new TransferScheduler(props(10_000, 1));
+		InputStream bulk = scheduler.open(body(1_000_000), 1_000_000, "docs", "client");
+		Thread reader = new Thread(() -> {
+			byte[] buf = new byte[TransferScheduler.CHUNK_SIZE];
+			try {
+				while (bulk.read(buf) >= 0) {}
+			} catch (Exception ignored) {}
+		});
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			Thread.sleep(300); // let the bulk read drain the burst and start waiting for tokens
+
+			long start = System.nanoTime();
+			try (InputStream small = scheduler.open(body(1000), 1000, "docs", "client")) {
+				assertEquals(1000, small.readAllBytes().length);
+			}
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			assertTrue(millis < 50, "small transfer waited " + millis + "ms");
+			assertTrue(reader.isAlive(), "bulk transfer was not throttled");
+		} finally {
+			reader.interrupt();
+			reader.join(5000);
+			bulk.close();
+		}
+	}
+
+	@Test
+	void rangesOfLargeObjectsAreNotPrioritized() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(10_000, 4));
+		try (InputStream burst = scheduler.open(body(10_000), 10_000, "docs", "client")) {
+			burst.readAllBytes(); // spends the client's whole burst
+		}
+
+		// A 1KB range of a 1MB object waits for tokens like any other bulk read
+		long start = System.nanoTime();
+		try (InputStream range = scheduler.open(body(1000), 1000, 1_000_000, "docs", "client")) {
+			assertEquals(1000, range.readAllBytes().length);
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			assertTrue(millis >= 50, "range was prioritized, waited only " + millis + "ms");
+
+			// ...and holds a large slot, so parallel ranges run into the per-client cap
+			InputStream second = scheduler.open(body(1000), 1000, 1_000_000, "docs", "client");
+			assertThrows(S3Exception.class, () -> scheduler.open(body(1000), 1000, 1_000_000, "docs", "client"));
+			second.close();
+		}
+	}
+
+	@Test
+	void recordedBytesSlowLaterBulkWithoutBlocking() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(10_000, 4));
+		long start = System.nanoTime();
+		scheduler.record("docs", "client", 1_000_000);
+		assertTrue(System.nanoTime() - start < Duration.ofMillis(50).toNanos(), "record() blocked");
+
+		// Drained to zero, not into debt: small transfers still go straight through
+		start = System.nanoTime();
+		try (InputStream small = scheduler.open(body(1000), 1000, "docs", "client")) {
+			small.readAllBytes();
+		}
+		assertTrue(System.nanoTime() - start < Duration.ofMillis(50).toNanos(), "small transfer waited");
+
+		start = System.nanoTime();
+		try (InputStream bulk = scheduler.open(body(2000), 2000, "docs", "client")) {
+			bulk.readAllBytes();
+		}
+		assertTrue(System.nanoTime() - start >= Duration.ofMillis(100).toNanos(), "bulk transfer was not slowed");
+	}
+
+	@Test
+	void releasesSlotOnceOnClose() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(0, 1));
+		InputStream first = scheduler.open(body(4096), 4096, "docs", "client");
+		first.close();
+		first.close();
+
+		InputStream second = scheduler.open(body(4096), 4096, "docs", "client");
+		// A double release would have left a second slot free
+		assertThrows(S3Exception.class, () -> scheduler.open(body(4096), 4096, "docs", "client"));
+		second.close();
+		scheduler.open(body(4096), 4096, "docs", "client").close();
+	}
+
+	@Test
+	void timesOutQueuedLargeTransferWithSlowDown() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(0, 1));
+		try (InputStream held = scheduler.open(body(4096), 4096, "docs", "client")) {
+			AtomicBoolean closed = new AtomicBoolean();
+			InputStream queued = new ByteArrayInputStream(new byte[4096]) {
+				@Override
+				public void close() {
+					closed.set(true);
+				}
+			};
+			long start = System.nanoTime();
+			S3Exception e = assertThrows(S3Exception.class, () -> scheduler.open(queued, 4096, "docs", "client"));
+			assertEquals("SlowDown", e.getCode());
+			assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+			assertTrue(closed.get(), "rejected body was not closed");
+
+			// Small transfers never queue for a slot
+			scheduler.open(body(1000), 1000, "docs", "client").close();
+		}
+	}
+
+	@Test
+	void capsLargeTransfersPerClient() throws Exception {
+		TransferProperties props = props(0, 4);
+		props.setMaxLargePerClient(1);
+		props.setLargeQueueTimeout(Duration.ofSeconds(10));
+		TransferScheduler scheduler = new TransferScheduler(props);
+		try (InputStream held = scheduler.open(body(4096), 4096, "docs", "a")) {
+			long start = System.nanoTime();
+			S3Exception e = assertThrows(S3Exception.class, () -> scheduler.open(body(4096), 4096, "docs", "a"));
+			assertEquals("SlowDown", e.getCode());
+			assertTrue(System.nanoTime() - start < Duration.ofSeconds(1).toNanos(), "rejection was not immediate");
+
+			// Free slots are still there for everyone else
+			scheduler.open(body(4096), 4096, "docs", "b").close();
+		}
+		scheduler.open(body(4096), 4096, "docs", "a").close();
+	}
+
+	@Test
+	void rejectsImmediatelyWhenLargeQueueIsFull() throws Exception {
+		TransferProperties props = props(0, 1);
+		props.setMaxQueuedLarge(0);
+		props.setLargeQueueTimeout(Duration.ofSeconds(10));
+		TransferScheduler scheduler = new TransferScheduler(props);
+		try (InputStream held = scheduler.open(body(4096), 4096, "docs", "a")) {
+			long start = System.nanoTime();
+			S3Exception e = assertThrows(S3Exception.class, () -> scheduler.open(body(4096), 4096, "docs", "b"));
+			assertEquals("SlowDown", e.getCode());
+			assertTrue(System.nanoTime() - start < Duration.ofSeconds(1).toNanos(), "rejection was not immediate");
+		}
+		scheduler.open(body(4096), 4096, "docs", "b").close();
+	}
+
+	@Test
+	void releasesSlotWhenRequestCompletesWithoutClose() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(0, 1));
+		ServletRequestAttributes request = new ServletRequestAttributes(new MockHttpServletRequest());
+		RequestContextHolder.setRequestAttributes(request);
+		try {
+			scheduler.open(body(4096), 4096, "docs", "client");
+		} finally {
+			RequestContextHolder.resetRequestAttributes();
+		}
+		assertThrows(S3Exception.class, () -> scheduler.open(body(4096), 4096, "docs", "client"));
+
+		request.requestCompleted();
+		scheduler.open(body(4096), 4096, "docs", "client").close();
+	}
+
+	@Test
+	void evictsOnlyUnusedFullLimits() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(props(100_000, 4));
+		InputStream a = scheduler.open(body(100), 100, "docs", "a");
+		InputStream b = scheduler.open(body(100), 100, "docs", "b");
+		InputStream c = scheduler.open(body(50_000), 50_000, "docs", "c");
+		c.readAllBytes();
+		a.close();
+		c.close();
+		assertEquals(3, scheduler.trackedLimits());
+
+		// a is idle and full; b is still open; c has not refilled the 50KB it spent yet
+		scheduler.evictIdle();
+		assertEquals(2, scheduler.trackedLimits());
+
+		b.close();
+		b.close();
+		scheduler.evictIdle();
+		assertEquals(1, scheduler.trackedLimits());
+	}
+
+	private static TransferProperties props(long bytesPerSecond, int largeSlots) {
+		TransferProperties props = new TransferProperties();
+		props.setClientBandwidth(DataSize.ofBytes(bytesPerSecond));
+		props.setSmallObjectThreshold(DataSize.ofBytes(1024));
+		props.setMaxConcurrentLarge(largeSlots);
+		props.setLargeQueueTimeout(Duration.ofMillis(50));
+		return props;
+	}
+
+	private static InputStream body(int size) {
+		return new ByteArrayInputStream(new byte[size]);
+	}
+}